@@ -14,8 +14,10 @@ public class PostOrderTraversalStrategy implements TraversalStrategy {
         if (n != nullNode) {
             execute(n.getLeft(), nullNode);
             execute(n.getRight(), nullNode);
-            System.out.print(((n.getColor() == RedBlackTreeColorEnum.RED) ? "Color: Red " : "Color: Black ") +
-                "Key: " + n.getElement() + " Parent: " + n.getParent().getElement() + "\n");
+            if (!n.isDeleted()) { // tombstones are not part of the tree
+                System.out.print(((n.getColor() == RedBlackTreeColorEnum.RED) ? "Color: Red " : "Color: Black ") +
+                    "Key: " + n.getElement() + " Parent: " + n.getParent().getElement() + "\n");
+            }
         }
     }
 }
@@ -12,8 +12,10 @@ public class PreOrderTraversalStrategy implements TraversalStrategy {
 
     public void execute(RedBlackTree.RedBlackTreeNode n, RedBlackTree.RedBlackTreeNode nullNode) {
         if (n != nullNode) {
-            System.out.print(((n.getColor() == RedBlackTreeColorEnum.RED) ? "Color: Red " : "Color: Black ") +
-                    "Key: " + n.getElement() + " Parent: " + n.getParent().getElement() + "\n");
+            if (!n.isDeleted()) { // tombstones are not part of the tree
+                System.out.print(((n.getColor() == RedBlackTreeColorEnum.RED) ? "Color: Red " : "Color: Black ") +
+                        "Key: " + n.getElement() + " Parent: " + n.getParent().getElement() + "\n");
+            }
             execute(n.getLeft(), nullNode);
             execute(n.getRight(), nullNode);
         }
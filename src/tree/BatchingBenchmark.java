@@ -0,0 +1,112 @@
+package tree;
+
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Measures the throughput of a BatchingRedBlackTree at several tree
+ * sizes. Publishing a snapshot costs the same at any size, so the
+ * throughput should only fall with the O(log n) cost of each write.
+ * For comparison, each row also shows what a full copy of the live
+ * keys costs at that size, which is what every publish used to cost.
+ *
+ * Usage: java tree.BatchingBenchmark [operations] [sizes...]
+ * The defaults are 1M operations per size and sizes of 10K, 100K,
+ * 1M and 2M keys.
+ *
+ * @version 1.0
+ * @author Slidejiveman
+ */
+public class BatchingBenchmark {
+
+    /**
+     * The number of client threads submitting at once.
+     */
+    private static final int CLIENTS = 4;
+
+    /**
+     * The queue capacity and the largest batch of the front end.
+     */
+    private static final int CAPACITY = 1024;
+    private static final int MAX_BATCH = 256;
+
+    /**
+     * How many times each size is timed; the first rounds warm up
+     * the JIT.
+     */
+    private static final int ROUNDS = 3;
+
+    /**
+     * Runs the benchmark.
+     * @param args - [operations] [sizes...]
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int operations = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+        int[] sizes = {10000, 100000, 1000000, 2000000};
+        if (args.length > 1) {
+            sizes = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                sizes[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("%d operations per round, %d clients, each deleting the key it just inserted%n",
+                operations, CLIENTS);
+        for (int size : sizes) {
+            Random random = new Random(42);
+            RedBlackTree rbt = new RedBlackTree();
+            rbt.setLazyDeletion(true);
+            for (int i = 0; i < size; i++) {
+                rbt.insert(random.nextInt());
+            }
+            long copy = System.nanoTime();
+            rbt.toArray();
+            copy = System.nanoTime() - copy;
+            BatchingRedBlackTree front = new BatchingRedBlackTree(rbt, CAPACITY, MAX_BATCH);
+            for (int round = 1; round <= ROUNDS; round++) {
+                long elapsed = time(front, operations, random.nextLong());
+                System.out.printf("%,d keys, round %d: %.0f ops/s (a full copy of the keys takes %.1f ms)%n",
+                        size, round, operations / (elapsed / 1e9), copy / 1e6);
+            }
+            front.close();
+        }
+    }
+
+    /**
+     * @param front - the front end to submit to
+     * @param operations - the number of operations, split over the clients
+     * @param seed - the seed of the clients' keys
+     * @return the time in nanoseconds until every operation completed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static long time(BatchingRedBlackTree front, int operations, long seed)
+            throws InterruptedException {
+        Thread[] clients = new Thread[CLIENTS];
+        long start = System.nanoTime();
+        for (int c = 0; c < CLIENTS; c++) {
+            Random keys = new Random(seed + c);
+            clients[c] = new Thread(() -> {
+                // one client's operations complete in order, so the last one is enough to wait for
+                CompletableFuture<Boolean> last = null;
+                int key = 0;
+                for (int i = 0; i < operations / CLIENTS; i++) {
+                    // delete what was just inserted, so the size holds steady
+                    if (i % 2 == 0) {
+                        key = keys.nextInt();
+                        last = front.insert(key);
+                    } else {
+                        last = front.delete(key);
+                    }
+                }
+                if (last != null) {
+                    last.join();
+                }
+            });
+            clients[c].start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        return System.nanoTime() - start;
+    }
+}
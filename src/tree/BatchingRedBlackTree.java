@@ -0,0 +1,454 @@
+package tree;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A thread-safe front end for a RedBlackTree that never locks it.
+ * Any number of client threads submit inserts and deletes to a bounded
+ * queue; one writer thread owns the tree, drains the queue in batches,
+ * applies each batch back to back and then completes the futures.
+ *
+ * Reads never wait for the writer. Next to the tree, the writer keeps
+ * an immutable treap of the live keys, and contains and size read the
+ * last published version of it. A write copies only the O(log n)
+ * nodes on its path; every other node is shared with the previous
+ * version. So publishing after a batch is a single volatile write,
+ * whatever the size of the tree, and it is done before the futures
+ * complete: once a write's future has completed, every read sees it.
+ * The price is a few allocations per write on the writer thread, and
+ * one more small node per distinct live key.
+ *
+ * After each batch the writer pays the compaction debt of the batch's
+ * deletes, so a tree in lazy deletion mode stays compact under any
+ * load.
+ *
+ * Every future completes. Once the front end is closed, or the writer
+ * stops for any reason, new and still queued operations fail with an
+ * IllegalStateException.
+ */
+public class BatchingRedBlackTree {
+
+    /**
+     * The error given to operations that arrive after close.
+     */
+    private static final String CLOSED = "The tree is closed";
+
+    private static final int INSERT = 0;
+    private static final int DELETE = 1;
+    private static final int CLOSE = 2;
+
+    /**
+     * The tree, which only the writer thread touches.
+     */
+    private final RedBlackTree tree;
+
+    /**
+     * The operations waiting for the writer.
+     */
+    private final BlockingQueue<Operation> queue;
+
+    /**
+     * The most operations the writer applies in one batch.
+     */
+    private final int maxBatch;
+
+    /**
+     * The thread that owns the tree.
+     */
+    private final Thread writer;
+
+    /**
+     * The root of the treap of live keys, as of the last publish.
+     * Null while no key is live.
+     */
+    private volatile SnapshotNode snapshot;
+
+    /**
+     * Set once close is called or the writer stops. New operations
+     * are rejected from then on.
+     */
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Set by the writer just before it drains the queue for the last
+     * time. An operation that lands in the queue after that drain is
+     * taken back out by its submitter, which sees this flag.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Takes ownership of the tree and starts the writer thread.
+     * The tree must not be used directly after this.
+     *
+     * @param tree - the tree to front
+     * @param capacity - how many operations may be queued before
+     *                 submitting blocks the client
+     * @param maxBatch - the most operations applied per batch
+     */
+    public BatchingRedBlackTree(RedBlackTree tree, int capacity, int maxBatch) {
+        this.tree = tree;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxBatch = maxBatch;
+        SnapshotNode keys = null;
+        for (int key : tree.toArray()) {
+            keys = SnapshotNode.insert(keys, key);
+        }
+        this.snapshot = keys;
+        this.writer = new Thread(this::run, "red-black-tree-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues an insert. By the time the future completes, contains
+     * and size reflect it.
+     * @param key - the value to insert
+     * @return a future that completes with true once the key is inserted
+     */
+    public CompletableFuture<Boolean> insert(int key) {
+        return submit(INSERT, key);
+    }
+
+    /**
+     * Queues a delete. By the time the future completes, contains
+     * and size reflect it.
+     * @param key - the value to remove
+     * @return a future that completes once the delete is applied, with
+     *         true if the key was found
+     */
+    public CompletableFuture<Boolean> delete(int key) {
+        return submit(DELETE, key);
+    }
+
+    /**
+     * Reads the last published snapshot without waiting for the writer.
+     * It reflects every insert and delete whose future has completed,
+     * and may already reflect some that are still in flight.
+     * @param key - the value to look for
+     * @return True if the key was live when the snapshot was published
+     */
+    public boolean contains(int key) {
+        for (SnapshotNode n = snapshot; n != null; ) {
+            if (key < n.key) {
+                n = n.left;
+            } else if (key > n.key) {
+                n = n.right;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of live keys when the snapshot was published
+     */
+    public int size() {
+        return SnapshotNode.size(snapshot);
+    }
+
+    /**
+     * Lets the writer finish every operation queued so far, then
+     * stops it. Operations submitted afterwards fail.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void close() throws InterruptedException {
+        if (!closed.getAndSet(true)) {
+            // only this call queues the marker, so an interrupt must not lose it
+            Operation stop = new Operation(CLOSE, 0);
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    enqueue(stop);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        writer.join();
+    }
+
+    /**
+     * Queues one operation, blocking while the queue is full.
+     * @param type - INSERT or DELETE
+     * @param key - the key of the operation
+     * @return the future of the operation
+     */
+    private CompletableFuture<Boolean> submit(int type, int key) {
+        Operation op = new Operation(type, key);
+        try {
+            if (closed.get() || !enqueue(op)) {
+                reject(op);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            op.result.completeExceptionally(e);
+        }
+        return op.result;
+    }
+
+    /**
+     * Queues an operation, then checks that the writer has not already
+     * drained the queue for the last time. If it has, the operation is
+     * taken back out, unless the final drain got to it after all.
+     *
+     * @param op - the operation to queue
+     * @return false if the operation was taken back out
+     * @throws InterruptedException if interrupted while the queue is full
+     */
+    private boolean enqueue(Operation op) throws InterruptedException {
+        queue.put(op);
+        return !(stopped && queue.remove(op));
+    }
+
+    /**
+     * The writer thread. However process ends, the front end is
+     * closed and every operation it did not complete is rejected.
+     */
+    private void run() {
+        ArrayList<Operation> batch = new ArrayList<>(maxBatch);
+        try {
+            process(batch);
+        } finally {
+            for (Operation op : batch) {
+                reject(op);
+            }
+            shutDown();
+        }
+    }
+
+    /**
+     * The writer loop. Each turn drains up to maxBatch operations and
+     * applies them to the tree and the treap. It then publishes the
+     * treap, completes the futures and pays the compaction debt.
+     * @param batch - the list to drain operations into
+     */
+    private void process(ArrayList<Operation> batch) {
+        SnapshotNode keys = snapshot;
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, maxBatch - 1);
+
+            boolean running = true;
+            for (Operation op : batch) {
+                try {
+                    switch (op.type) {
+                        case INSERT:
+                            tree.insert(op.key);
+                            keys = SnapshotNode.insert(keys, op.key);
+                            op.found = true;
+                            break;
+                        case DELETE:
+                            op.found = tree.delete(op.key);
+                            if (op.found) {
+                                keys = SnapshotNode.delete(keys, op.key);
+                            }
+                            break;
+                        default:
+                            running = false;
+                            break;
+                    }
+                } catch (RuntimeException e) {
+                    op.result.completeExceptionally(e);
+                }
+            }
+            // publish first, so a read after any completed future sees its write
+            snapshot = keys;
+            for (Operation op : batch) {
+                op.result.complete(op.found);
+            }
+            batch.clear();
+            if (!running) {
+                return;
+            }
+            tree.compact();
+        }
+    }
+
+    /**
+     * Marks the front end closed and stopped, then rejects whatever is
+     * still queued. Submitters that get past the closed check later
+     * see stopped after their put and take their operation back out,
+     * so nothing waits on the writer and nothing spins.
+     */
+    private void shutDown() {
+        closed.set(true);
+        stopped = true;
+        rejectQueued();
+    }
+
+    /**
+     * Fails every operation left in the queue.
+     */
+    private void rejectQueued() {
+        for (Operation op; (op = queue.poll()) != null; ) {
+            reject(op);
+        }
+    }
+
+    /**
+     * Fails an operation because the front end is closed. Operations
+     * that already completed are left alone.
+     * @param op - the operation to fail
+     */
+    private static void reject(Operation op) {
+        op.result.completeExceptionally(new IllegalStateException(CLOSED));
+    }
+
+    /**
+     * One queued request and the future of its result.
+     */
+    private static class Operation {
+
+        private final int type;
+        private final int key;
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        /**
+         * The result, set by the writer until the batch is published.
+         */
+        private boolean found;
+
+        /**
+         * @param type - INSERT, DELETE or CLOSE
+         * @param key - the key of the operation
+         */
+        Operation(int type, int key) {
+            this.type = type;
+            this.key = key;
+        }
+    }
+
+    /**
+     * One node of an immutable treap of keys. Nodes are never changed
+     * once built, so a published root is safe to read from any thread,
+     * and a new version shares every node off the changed path.
+     * The priority of a node is a hash of its key, which keeps the
+     * treap balanced in expectation without a random source.
+     */
+    private static final class SnapshotNode {
+
+        private final int key;
+        private final int copies;
+        private final int size;
+        private final SnapshotNode left;
+        private final SnapshotNode right;
+
+        /**
+         * @param key - the key of the node
+         * @param copies - how many live copies of the key there are
+         * @param left - the subtree of smaller keys, or null
+         * @param right - the subtree of larger keys, or null
+         */
+        SnapshotNode(int key, int copies, SnapshotNode left, SnapshotNode right) {
+            this.key = key;
+            this.copies = copies;
+            this.left = left;
+            this.right = right;
+            this.size = copies + size(left) + size(right);
+        }
+
+        /**
+         * @param n - a subtree, or null
+         * @return the number of live keys in the subtree
+         */
+        static int size(SnapshotNode n) {
+            return (n == null) ? 0 : n.size;
+        }
+
+        /**
+         * Mixes the bits of a key, so that runs of keys still get
+         * priorities that look random. The mix is a bijection, so
+         * different keys never tie.
+         * @param key - a key
+         * @return the priority of the node holding the key
+         */
+        static int priority(int key) {
+            key ^= key >>> 16;
+            key *= 0x85EBCA6B;
+            key ^= key >>> 13;
+            key *= 0xC2B2AE35;
+            return key ^ (key >>> 16);
+        }
+
+        /**
+         * @param n - a treap, or null
+         * @param key - the key to add a copy of
+         * @return the new version of the treap
+         */
+        static SnapshotNode insert(SnapshotNode n, int key) {
+            if (n == null) {
+                return new SnapshotNode(key, 1, null, null);
+            }
+            if (key == n.key) {
+                return new SnapshotNode(key, n.copies + 1, n.left, n.right);
+            }
+            if (key < n.key) {
+                SnapshotNode l = insert(n.left, key);
+                if (priority(l.key) > priority(n.key)) { // rotate l above n
+                    return new SnapshotNode(l.key, l.copies, l.left,
+                            new SnapshotNode(n.key, n.copies, l.right, n.right));
+                }
+                return new SnapshotNode(n.key, n.copies, l, n.right);
+            }
+            SnapshotNode r = insert(n.right, key);
+            if (priority(r.key) > priority(n.key)) { // rotate r above n
+                return new SnapshotNode(r.key, r.copies,
+                        new SnapshotNode(n.key, n.copies, n.left, r.left), r.right);
+            }
+            return new SnapshotNode(n.key, n.copies, n.left, r);
+        }
+
+        /**
+         * @param n - a treap, or null
+         * @param key - the key to remove one copy of
+         * @return the new version of the treap
+         */
+        static SnapshotNode delete(SnapshotNode n, int key) {
+            if (n == null) {
+                return null;
+            }
+            if (key < n.key) {
+                return new SnapshotNode(n.key, n.copies, delete(n.left, key), n.right);
+            }
+            if (key > n.key) {
+                return new SnapshotNode(n.key, n.copies, n.left, delete(n.right, key));
+            }
+            if (n.copies > 1) {
+                return new SnapshotNode(key, n.copies - 1, n.left, n.right);
+            }
+            return merge(n.left, n.right);
+        }
+
+        /**
+         * Joins two treaps whose keys do not overlap.
+         * @param l - the treap of smaller keys, or null
+         * @param r - the treap of larger keys, or null
+         * @return the joined treap
+         */
+        static SnapshotNode merge(SnapshotNode l, SnapshotNode r) {
+            if (l == null) {
+                return r;
+            }
+            if (r == null) {
+                return l;
+            }
+            if (priority(l.key) > priority(r.key)) {
+                return new SnapshotNode(l.key, l.copies, l.left, merge(l.right, r));
+            }
+            return new SnapshotNode(r.key, r.copies, merge(l, r.left), r.right);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package tree;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Regression check for a BatchingRedBlackTree. The first run fronts a
+ * prefilled tree and checks, after every completed insert or delete,
+ * that the snapshot agrees with a TreeMap of key counts, duplicates
+ * included. Then come the shutdown trials: each trial starts clients that submit without pause into a small queue
+ * and closes the front end part way through. Every client must get
+ * out, every future must complete, and the last snapshot must match
+ * the tree. A last run fronts a tree that throws, and checks that
+ * only the failing operation fails.
+ *
+ * Usage: java tree.BatchingRedBlackTreeCheck [trials] [seed]
+ *
+ * @version 1.0
+ * @author Slidejiveman
+ */
+public class BatchingRedBlackTreeCheck {
+
+    /**
+     * Keys are drawn from this range, so inserts and deletes collide.
+     */
+    private static final int KEY_RANGE = 100;
+
+    /**
+     * The number of client threads per trial.
+     */
+    private static final int CLIENTS = 8;
+
+    /**
+     * How long a client, a close or a future may take before the
+     * check counts it as hung.
+     */
+    private static final long TIMEOUT_SECONDS = 10;
+
+    /**
+     * Runs the check and exits with a non-zero status on a failure.
+     * @param args - [trials] [seed]
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int trials = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        long seed = (args.length > 1) ? Long.parseLong(args[1]) : 1;
+        Random random = new Random(seed);
+        long completed = 0;
+        try {
+            checkReadYourWrites(100000, random);
+            for (int trial = 0; trial < trials; trial++) {
+                completed += checkCloseRace(trial, random);
+            }
+            checkFailingTree();
+        } catch (IllegalStateException e) {
+            System.err.println("FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("OK: read-your-writes, " + trials + " close races, " + completed
+                + " operations run before close, and a failing tree");
+    }
+
+    /**
+     * Runs random inserts and deletes one at a time. As soon as each
+     * future completes, contains and size must already reflect it.
+     *
+     * @param operations - the number of random operations to run
+     * @param random - the source of keys and operations
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static void checkReadYourWrites(int operations, Random random) throws InterruptedException {
+        RedBlackTree rbt = new RedBlackTree();
+        rbt.setLazyDeletion(true);
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        int size = 0;
+        for (int i = 0; i < KEY_RANGE; i++) {
+            int key = random.nextInt(KEY_RANGE);
+            rbt.insert(key);
+            expected.merge(key, 1, Integer::sum);
+            size++;
+        }
+        BatchingRedBlackTree front = new BatchingRedBlackTree(rbt, 16, 8);
+        for (int i = 0; i < operations; i++) {
+            int key = random.nextInt(KEY_RANGE);
+            try {
+                if (random.nextBoolean()) {
+                    front.insert(key).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    expected.merge(key, 1, Integer::sum);
+                    size++;
+                } else {
+                    Integer count = expected.get(key);
+                    if (front.delete(key).get(TIMEOUT_SECONDS, TimeUnit.SECONDS) != (count != null)) {
+                        throw new IllegalStateException("Delete of " + key + " disagrees at operation " + i);
+                    }
+                    if (count != null) {
+                        if (count == 1) {
+                            expected.remove(key);
+                        } else {
+                            expected.put(key, count - 1);
+                        }
+                        size--;
+                    }
+                }
+            } catch (ExecutionException | TimeoutException e) {
+                throw new IllegalStateException("Operation " + i + " did not complete: " + e);
+            }
+            if (front.contains(key) != expected.containsKey(key) || front.size() != size) {
+                throw new IllegalStateException("The snapshot missed operation " + i + " on " + key);
+            }
+        }
+        front.close();
+        rbt.checkInvariants();
+    }
+
+    /**
+     * Races CLIENTS submitters against close. Each client submits
+     * until one of its operations is rejected on the spot, which only
+     * happens once the front end is closed.
+     *
+     * @param trial - the number of the trial, for the messages
+     * @param random - the source of keys and timings
+     * @return the number of operations that ran before the close
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static int checkCloseRace(int trial, Random random) throws InterruptedException {
+        RedBlackTree rbt = new RedBlackTree();
+        rbt.setLazyDeletion(random.nextBoolean());
+        BatchingRedBlackTree front = new BatchingRedBlackTree(rbt, 1 + random.nextInt(4), 2);
+        ArrayList<ArrayList<CompletableFuture<Boolean>>> futures = new ArrayList<>();
+        Thread[] clients = new Thread[CLIENTS];
+        for (int c = 0; c < CLIENTS; c++) {
+            ArrayList<CompletableFuture<Boolean>> mine = new ArrayList<>();
+            futures.add(mine);
+            Random keys = new Random(random.nextLong());
+            clients[c] = new Thread(() -> {
+                while (true) {
+                    int key = keys.nextInt(KEY_RANGE);
+                    CompletableFuture<Boolean> f = keys.nextBoolean() ? front.insert(key) : front.delete(key);
+                    mine.add(f);
+                    if (f.isCompletedExceptionally()) {
+                        break;
+                    }
+                }
+            });
+            clients[c].start();
+        }
+        Thread.sleep(random.nextInt(3));
+        Thread closer = new Thread(() -> {
+            try {
+                front.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        closer.start();
+        await(closer, "close", trial);
+        for (Thread client : clients) {
+            await(client, "a client", trial);
+        }
+        int completed = 0;
+        for (ArrayList<CompletableFuture<Boolean>> mine : futures) {
+            for (CompletableFuture<Boolean> f : mine) {
+                try {
+                    f.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    completed++;
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof IllegalStateException)) {
+                        throw new IllegalStateException("Unexpected failure " + e.getCause() + " in trial " + trial);
+                    }
+                } catch (TimeoutException e) {
+                    throw new IllegalStateException("A future never completed in trial " + trial);
+                }
+            }
+        }
+        // close joined the writer, so the tree is safe to read here
+        if (front.size() != rbt.size()) {
+            throw new IllegalStateException("The final snapshot has " + front.size()
+                    + " keys instead of " + rbt.size() + " in trial " + trial);
+        }
+        for (int key = 0; key < KEY_RANGE; key++) {
+            if (front.contains(key) != rbt.contains(key)) {
+                throw new IllegalStateException("The final snapshot disagrees on " + key + " in trial " + trial);
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Fronts a tree that throws on one key. The operation on that key
+     * must fail with the tree's exception, and the writer must carry
+     * on with the next one.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static void checkFailingTree() throws InterruptedException {
+        RedBlackTree rbt = new RedBlackTree() {
+            @Override
+            public void insert(int key) {
+                if (key == 13) {
+                    throw new IllegalArgumentException("unlucky key");
+                }
+                super.insert(key);
+            }
+        };
+        BatchingRedBlackTree front = new BatchingRedBlackTree(rbt, 16, 8);
+        try {
+            front.insert(13).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            throw new IllegalStateException("The failing insert completed normally");
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof IllegalArgumentException)) {
+                throw new IllegalStateException("The failing insert failed with " + e.getCause());
+            }
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("The failing insert never completed");
+        }
+        try {
+            if (!front.insert(14).get(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("The insert after a failure returned false");
+            }
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("The writer died with the failing insert");
+        }
+        front.close();
+        if (!front.contains(14) || front.contains(13)) {
+            throw new IllegalStateException("The final snapshot is wrong after a failure");
+        }
+    }
+
+    /**
+     * @param t - the thread to wait for
+     * @param what - what the thread does, for the message
+     * @param trial - the number of the trial, for the message
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static void await(Thread t, String what, int trial) throws InterruptedException {
+        t.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        if (t.isAlive()) {
+            throw new IllegalStateException("Hung in " + what + " in trial " + trial);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package tree;
+
+import java.util.Random;
+
+/**
+ * Compares lookups with and without the find cache on a skewed,
+ * Zipfian workload, where a few keys get most of the lookups.
+ *
+ * Usage: java tree.FindCacheBenchmark [keys] [lookups] [skew] [slots]
+ * The defaults are 1M keys, 20M lookups, a skew of 0.99 and 16384
+ * cache slots.
+ *
+ * @version 1.0
+ * @author Slidejiveman
+ */
+public class FindCacheBenchmark {
+
+    /**
+     * How many times each configuration is timed; the first
+     * rounds warm up the JIT.
+     */
+    private static final int ROUNDS = 5;
+
+    /**
+     * Runs the benchmark.
+     * @param args - [keys] [lookups] [skew] [slots]
+     */
+    public static void main(String[] args) {
+        int keys = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+        int lookups = (args.length > 1) ? Integer.parseInt(args[1]) : 20000000;
+        double skew = (args.length > 2) ? Double.parseDouble(args[2]) : 0.99;
+        int slots = (args.length > 3) ? Integer.parseInt(args[3]) : 16384;
+        Random random = new Random(42);
+
+        // shuffle the keys so the hot ones are spread over the tree
+        int[] byRank = new int[keys];
+        for (int i = 0; i < keys; i++) {
+            byRank[i] = i * 2;
+        }
+        for (int i = keys - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = byRank[i];
+            byRank[i] = byRank[j];
+            byRank[j] = t;
+        }
+        RedBlackTree rbt = new RedBlackTree();
+        for (int key : byRank) {
+            rbt.insert(key);
+        }
+        int[] workload = zipfian(byRank, lookups, skew, random);
+
+        System.out.printf("%d keys, %d lookups, skew %.2f%n", keys, lookups, skew);
+        for (int round = 1; round <= ROUNDS; round++) {
+            rbt.setFindCache(0);
+            long plain = time(rbt, workload);
+            rbt.setFindCache(slots);
+            long cached = time(rbt, workload);
+            System.out.printf("round %d: plain descent %.1f ns/op, find cache (%d slots) %.1f ns/op%n",
+                    round, (double) plain / lookups, rbt.getFindCache(), (double) cached / lookups);
+        }
+    }
+
+    /**
+     * @return the time in nanoseconds to look up every key in the workload
+     */
+    private static long time(RedBlackTree rbt, int[] workload) {
+        int found = 0;
+        long start = System.nanoTime();
+        for (int key : workload) {
+            if (rbt.contains(key)) {
+                found++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (found != workload.length) {
+            throw new IllegalStateException("Lost a key during the benchmark");
+        }
+        return elapsed;
+    }
+
+    /**
+     * Draws keys so that the key of rank r is picked with a
+     * probability proportional to 1 / r^skew.
+     *
+     * @param byRank - the keys, hottest first
+     * @param count - the number of keys to draw
+     * @param skew - the Zipf exponent
+     * @param random - the source of randomness
+     * @return the drawn keys
+     */
+    private static int[] zipfian(int[] byRank, int count, double skew, Random random) {
+        double[] cumulative = new double[byRank.length];
+        double total = 0;
+        for (int r = 0; r < byRank.length; r++) {
+            total += 1 / Math.pow(r + 1, skew);
+            cumulative[r] = total;
+        }
+        int[] drawn = new int[count];
+        for (int i = 0; i < count; i++) {
+            double u = random.nextDouble() * total;
+            int lo = 0;
+            int hi = byRank.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cumulative[mid] < u) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            drawn[i] = byRank[lo];
+        }
+        return drawn;
+    }
+}
@@ -0,0 +1,68 @@
+package tree;
+
+/**
+ * A LongAggregator folds the values stored in a RedBlackTree into a
+ * single long, so the tree can keep the aggregate of every subtree and
+ * answer range queries in O(log n). It works on primitive longs so no
+ * values are boxed while the tree is rebalanced.
+ *
+ * combine must be associative and identity must be its neutral
+ * element. combine does not need to be commutative; the left operand
+ * always covers the smaller keys.
+ */
+public interface LongAggregator {
+
+    /**
+     * @return the aggregate of no values at all
+     */
+    long identity();
+
+    /**
+     * @param value - the value stored in one node
+     * @return the aggregate of that single node
+     */
+    long lift(long value);
+
+    /**
+     * @param left - the aggregate of the smaller keys
+     * @param right - the aggregate of the larger keys
+     * @return the aggregate of both
+     */
+    long combine(long left, long right);
+
+    /**
+     * The sum of the values.
+     */
+    LongAggregator SUM = new LongAggregator() {
+        public long identity() { return 0; }
+        public long lift(long value) { return value; }
+        public long combine(long left, long right) { return left + right; }
+    };
+
+    /**
+     * The smallest value, or Long.MAX_VALUE for an empty range.
+     */
+    LongAggregator MIN = new LongAggregator() {
+        public long identity() { return Long.MAX_VALUE; }
+        public long lift(long value) { return value; }
+        public long combine(long left, long right) { return Math.min(left, right); }
+    };
+
+    /**
+     * The largest value, or Long.MIN_VALUE for an empty range.
+     */
+    LongAggregator MAX = new LongAggregator() {
+        public long identity() { return Long.MIN_VALUE; }
+        public long lift(long value) { return value; }
+        public long combine(long left, long right) { return Math.max(left, right); }
+    };
+
+    /**
+     * The number of keys, ignoring the values.
+     */
+    LongAggregator COUNT = new LongAggregator() {
+        public long identity() { return 0; }
+        public long lift(long value) { return 1; }
+        public long combine(long left, long right) { return left + right; }
+    };
+}
@@ -5,6 +5,8 @@ import strategy.PostOrderTraversalStrategy;
 import strategy.PreOrderTraversalStrategy;
 import strategy.TraversalStrategy;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Scanner;
 
 /**
@@ -44,6 +46,19 @@ public class RedBlackTree {
      */
     private final RedBlackTreeNode nullNode = new RedBlackTreeNode(-1);
 
+    /**
+     * The units of compaction work each lazy delete adds to the debt.
+     * A rebuild costs at most two units per tombstone it drops, and
+     * each dropped tombstone costs one more when compact later pops it
+     * from the queue, so three units always pay for a tombstone.
+     */
+    private static final int COMPACTION_DEBT_PER_DELETE = 3;
+
+    /**
+     * The largest find cache, the biggest power of two an int holds.
+     */
+    private static final int MAX_FIND_CACHE = 1 << 30;
+
     /**
      * The traversalStrategy is used to implement the strategy design
      * pattern in this RBT. Any of the traversals that implement this
@@ -51,6 +66,53 @@ public class RedBlackTree {
      */
     private TraversalStrategy traversalStrategy;
 
+    /**
+     * When lazy deletion is on, delete only marks the node as a
+     * tombstone. The rotations are paid later, by compact.
+     */
+    private boolean lazyDeletion;
+
+    /**
+     * The tombstones waiting to be physically removed, oldest first.
+     * Tombstones dropped by a subtree rebuild stay queued until
+     * compact reaches them; their parent is null.
+     */
+    private final ArrayDeque<RedBlackTreeNode> tombstones = new ArrayDeque<>();
+
+    /**
+     * The compaction work owed for the lazy deletes so far. compact()
+     * pays it off, so tombstones cannot pile up faster than they are
+     * removed, however fast the deletes come.
+     */
+    private long compactionDebt;
+
+    /**
+     * When set, every node keeps the aggregate of its subtree's
+     * values so that aggregate(lo, hi) runs in O(log n).
+     */
+    private LongAggregator aggregator;
+
+    /**
+     * The keys of the find cache, a small direct-mapped table that
+     * sends lookups for hot keys straight to their nodes. Null while
+     * the cache is off.
+     */
+    private int[] cacheKeys;
+
+    /**
+     * The cached nodes, in the same slots as cacheKeys. Rotations and
+     * rebuilds relink nodes without copying keys between them, so an
+     * entry only goes stale when its node leaves the tree.
+     */
+    private RedBlackTreeNode[] cacheNodes;
+
+    /**
+     * Set when a slot's entry is hit, cleared when a miss spares it.
+     * An entry is only replaced after a miss finds its bit clear, so
+     * a burst of cold keys cannot flush the hot ones.
+     */
+    private boolean[] cacheReferenced;
+
     /**
      * The default constructor ensures that the root and its children
      * point to the nullNode. Already, the benefits of having a Null
@@ -78,6 +140,7 @@ public class RedBlackTree {
             root = n;
             n.setColor(RedBlackTreeColorEnum.BLACK);
             n.setParent(nullNode);
+            updateAggregate(n);
         } else { // in this case, n is added on the left or right
                  // based on key value
             n.setColor(RedBlackTreeColorEnum.RED); // not root => RED
@@ -100,11 +163,172 @@ public class RedBlackTree {
                     }
                 }
             }
+            updatePath(n);
             // after an insertion, a rebalancing might be necessary
             rebalance(n);
         }
     }
 
+    /**
+     * Inserts a new node holding the given key.
+     * @param key - the value to insert into the RBT.
+     */
+    public void insert(int key) {
+        insert(new RedBlackTreeNode(key));
+    }
+
+    /**
+     * Inserts a new node holding the given key and value. The value
+     * is what aggregate folds over.
+     * @param key - the value to insert into the RBT.
+     * @param value - the value associated with the key
+     */
+    public void insert(int key, long value) {
+        RedBlackTreeNode n = new RedBlackTreeNode(key);
+        n.setValue(value);
+        insert(n);
+    }
+
+    /**
+     * Removes one node holding the given key.
+     * @param key - the value to remove
+     * @return True if the key is found. False otherwise
+     */
+    public boolean delete(int key) {
+        return delete(new RedBlackTreeNode(key));
+    }
+
+    /**
+     * @param key - the value to look for
+     * @return True if a live node holds the key. False otherwise
+     */
+    public boolean contains(int key) {
+        return lookup(key) != nullNode;
+    }
+
+    /**
+     * Finds a live node holding the key, trying the find cache before
+     * descending from the root. A node found by descent takes its slot
+     * unless the entry there was hit since the last miss.
+     *
+     * @param key - the value to look for
+     * @return either the nullNode or the found node
+     */
+    private RedBlackTreeNode lookup(int key) {
+        if (cacheNodes == null) {
+            return find(new RedBlackTreeNode(key), root);
+        }
+        int slot = cacheSlot(key);
+        RedBlackTreeNode n = cacheNodes[slot];
+        if (n != null && cacheKeys[slot] == key && !n.isDeleted()) {
+            cacheReferenced[slot] = true;
+            return n;
+        }
+        RedBlackTreeNode found = find(new RedBlackTreeNode(key), root);
+        if (found != nullNode) {
+            if (cacheReferenced[slot] && n != null && !n.isDeleted()) {
+                cacheReferenced[slot] = false; // a second chance
+            } else {
+                cacheKeys[slot] = key;
+                cacheNodes[slot] = found;
+                cacheReferenced[slot] = false;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param key - a key
+     * @return the find cache slot of the key
+     */
+    private int cacheSlot(int key) {
+        return (key * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(cacheNodes.length));
+    }
+
+    /**
+     * Drops a node from the find cache once it leaves the tree.
+     * @param n - the node being unlinked
+     */
+    private void evict(RedBlackTreeNode n) {
+        if (cacheNodes != null) {
+            int slot = cacheSlot(n.getElement());
+            if (cacheNodes[slot] == n) {
+                cacheNodes[slot] = null;
+            }
+        }
+    }
+
+    /**
+     * Turns the find cache on or off. The capacity is rounded up to
+     * a power of two; about as many hot keys as slots stay cached.
+     * @param capacity - the number of slots, or 0 to turn the cache off
+     * @throws IllegalArgumentException if capacity is over 2^30
+     */
+    public void setFindCache(int capacity) {
+        if (capacity > MAX_FIND_CACHE) {
+            throw new IllegalArgumentException("Find cache capacity " + capacity
+                    + " is over the maximum of " + MAX_FIND_CACHE);
+        }
+        if (capacity <= 0) {
+            cacheKeys = null;
+            cacheNodes = null;
+            cacheReferenced = null;
+        } else {
+            capacity = Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+            cacheKeys = new int[capacity];
+            cacheNodes = new RedBlackTreeNode[capacity];
+            cacheReferenced = new boolean[capacity];
+        }
+    }
+
+    /**
+     * @return the number of find cache slots, or 0 if it is off
+     */
+    public int getFindCache() {
+        return (cacheNodes == null) ? 0 : cacheNodes.length;
+    }
+
+    /**
+     * @return the number of live keys, not counting tombstones
+     */
+    public int size() {
+        return root.getCount() - root.getTombstoneCount();
+    }
+
+    /**
+     * @return the number of tombstones still in the tree
+     */
+    public int getTombstoneCount() {
+        return root.getTombstoneCount();
+    }
+
+    /**
+     * @return the live keys in ascending order
+     */
+    public int[] toArray() {
+        int[] keys = new int[size()];
+        fill(root, keys, 0);
+        return keys;
+    }
+
+    /**
+     * Copies the live keys of a subtree into an array, in order.
+     * @param n - the subtree root
+     * @param keys - the array to fill
+     * @param i - the index of the subtree's first key
+     * @return the index just past the subtree's last key
+     */
+    private int fill(RedBlackTreeNode n, int[] keys, int i) {
+        if (n != nullNode) {
+            i = fill(n.getLeft(), keys, i);
+            if (!n.isDeleted()) {
+                keys[i++] = n.getElement();
+            }
+            i = fill(n.getRight(), keys, i);
+        }
+        return i;
+    }
+
     /**
      * Called after an insertion occurs. A rebalancing ensures that all
      * of the properties listed above are still true after inserting.
@@ -145,7 +369,7 @@ public class RedBlackTree {
                 if (uncle != nullNode && uncle.getColor() == RedBlackTreeColorEnum.RED) {
                     n.getParent().setColor(RedBlackTreeColorEnum.BLACK);
                     uncle.setColor(RedBlackTreeColorEnum.BLACK);
-                    n.getParent().getParent().getParent().setColor(RedBlackTreeColorEnum.RED);
+                    n.getParent().getParent().setColor(RedBlackTreeColorEnum.RED);
                     n = n.getParent().getParent();
                     continue;
                 }
@@ -185,13 +409,18 @@ public class RedBlackTree {
         } else { // rotate the root
             RedBlackTreeNode right = root.getRight();
             root.setRight(right.getLeft());
-            right.getLeft().setParent(root);
+            if (right.getLeft() != nullNode) {
+                right.getLeft().setParent(root);
+            }
             root.setParent(right);
 
             right.setLeft(root);
             right.setParent(nullNode);
             root = right;
         }
+        // only n and the child that took its place cover new key sets
+        updateAggregate(n);
+        updateAggregate(n.getParent());
     }
 
     /**
@@ -216,12 +445,16 @@ public class RedBlackTree {
         } else {
             RedBlackTreeNode left = root.getLeft();
             root.setLeft(root.getLeft().getRight());
-            left.getRight().setParent(root);
+            if (left.getRight() != nullNode) {
+                left.getRight().setParent(root);
+            }
             root.setParent(left);
             left.setRight(root);
             left.setParent(nullNode);
             root = left;
         }
+        updateAggregate(n);
+        updateAggregate(n.getParent());
     }
 
     /**
@@ -244,7 +477,12 @@ public class RedBlackTree {
                     return find(target, searchable.getRight());
                 }
             } else if (target.getElement() == searchable.getElement()) {
-                return searchable;
+                if (!searchable.isDeleted()) {
+                    return searchable;
+                }
+                // a tombstone may hide a live duplicate on either side
+                RedBlackTreeNode duplicate = find(target, searchable.getLeft());
+                return (duplicate != nullNode) ? duplicate : find(target, searchable.getRight());
             }
         }
         return nullNode;
@@ -255,8 +493,13 @@ public class RedBlackTree {
      * the rest of the references and marks the memory
      * for garbage collection.
      */
-    private void deleteTree() {
+    void deleteTree() {
         root = nullNode;
+        tombstones.clear();
+        compactionDebt = 0;
+        if (cacheNodes != null) {
+            setFindCache(cacheNodes.length);
+        }
     }
 
     /**
@@ -277,14 +520,32 @@ public class RedBlackTree {
     }
 
     /**
-     * Removes the specified node from the tree.
+     * Removes the specified node from the tree. In lazy mode the
+     * node is only marked as a tombstone and queued for compact.
      * @param target - the node to remove
      * @return True if the node is found. False otherwise
      */
-    private boolean delete(RedBlackTreeNode target) {
-        if ((target = find(target, root)) == nullNode) {
+    boolean delete(RedBlackTreeNode target) {
+        if ((target = lookup(target.getElement())) == nullNode) {
             return false;
         }
+        if (lazyDeletion) {
+            target.setDeleted(true);
+            tombstones.add(target);
+            compactionDebt += COMPACTION_DEBT_PER_DELETE;
+            updatePath(target);
+        } else {
+            remove(target);
+        }
+        return true;
+    }
+
+    /**
+     * Physically unlinks a node that is known to be in the tree.
+     * @param target - the node to unlink
+     */
+    private void remove(RedBlackTreeNode target) {
+        evict(target);
         RedBlackTreeNode x;
         RedBlackTreeNode y = target;
         int original = y.getColor(); // enums represent ints
@@ -310,11 +571,321 @@ public class RedBlackTree {
             y.setLeft(target.getLeft());
             y.getLeft().setParent(y);
             y.setColor(target.getColor());
-            if(original == RedBlackTreeColorEnum.BLACK) {
-                deleteFixup(x);
+        }
+        // x's parent is the lowest node whose subtree lost a key
+        updatePath(x.getParent());
+        if (original == RedBlackTreeColorEnum.BLACK) {
+            deleteFixup(x);
+        }
+    }
+
+    /**
+     * Physically removes tombstones in a slice of at most maxNodes
+     * units of work, so the cost of lazy deletes is paid off the delete
+     * path. Unlinking one tombstone costs one unit. When most of a small
+     * subtree around the oldest tombstone is dead, that subtree is
+     * rebuilt from its live nodes instead, at one unit per node in it.
+     *
+     * @param maxNodes - the most units of work to do
+     * @return the number of tombstones removed
+     */
+    public int compact(int maxNodes) {
+        int removed = 0;
+        int budget = maxNodes;
+        while (budget > 0 && !tombstones.isEmpty()) {
+            RedBlackTreeNode t = tombstones.peek();
+            budget--;
+            if (t.getParent() == null) {
+                tombstones.poll(); // already dropped by a subtree rebuild
+                continue;
+            }
+            // find the largest mostly-dead subtree above t that fits the budget
+            RedBlackTreeNode dense = nullNode;
+            long denseColors = 0;
+            for (RedBlackTreeNode a = t; a != nullNode && a.getCount() <= budget + 1; a = a.getParent()) {
+                if (a.getTombstoneCount() * 2 >= a.getCount()) {
+                    long colors = rebuildColors(a);
+                    if (colors >= 0) {
+                        dense = a;
+                        denseColors = colors;
+                    }
+                }
+            }
+            if (dense != nullNode) {
+                budget -= dense.getCount() - 1;
+                removed += dense.getTombstoneCount();
+                rebuildSubtree(dense, denseColors);
+            } else {
+                tombstones.poll();
+                remove(t);
+                removed++;
             }
         }
-        return true;
+        compactionDebt = tombstones.isEmpty() ? 0 : Math.max(0, compactionDebt - (maxNodes - budget));
+        return removed;
+    }
+
+    /**
+     * Pays off the compaction debt of the lazy deletes since the last
+     * call. Called once per batch of operations, it keeps the number
+     * of tombstones bounded under any delete rate, at an amortized
+     * cost of a few units per delete.
+     *
+     * @return the number of tombstones removed
+     */
+    public int compact() {
+        return compact((int) Math.min(compactionDebt, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Rebuilds the whole tree from its live nodes, dropping every
+     * tombstone in one O(n) pass. Unlike compact, the work is not
+     * bounded, so call it only where a pause is acceptable.
+     *
+     * @return the number of tombstones removed
+     */
+    public int rebuild() {
+        int removed = root.getTombstoneCount();
+        if (root != nullNode) {
+            rebuildSubtree(root, rebuildColors(root));
+        }
+        tombstones.clear();
+        compactionDebt = 0;
+        return removed;
+    }
+
+    /**
+     * Works out how to color a balanced rebuild of a subtree's live
+     * nodes so the tree around it stays a Red-Black tree: the new
+     * subtree needs the same black height, and a black root if its
+     * parent is red. The nodes are laid out level by level, so a
+     * color per level is enough.
+     *
+     * @param n - the root of the subtree to rebuild
+     * @return a bit mask of the red levels, or -1 if the live nodes
+     *         cannot make up that black height
+     */
+    private long rebuildColors(RedBlackTreeNode n) {
+        int live = n.getCount() - n.getTombstoneCount();
+        if (live == 0) {
+            // only the root or a red leaf can vanish without changing black height
+            return (n == root || (n.getColor() == RedBlackTreeColorEnum.RED
+                    && n.getLeft() == nullNode && n.getRight() == nullNode)) ? 0 : -1;
+        }
+        int deepest = 31 - Integer.numberOfLeadingZeros(live);
+        boolean full = live == (1L << (deepest + 1)) - 1;
+        // a partial bottom level must be red so every path has equal black height
+        long mask = full ? 0 : 1L << deepest;
+        int top = full ? deepest : deepest - 1;
+        if (n == root) {
+            return mask;
+        }
+        int blackHeight = 0;
+        for (RedBlackTreeNode d = n; d != nullNode; d = d.getLeft()) {
+            if (d.getColor() == RedBlackTreeColorEnum.BLACK) {
+                blackHeight++;
+            }
+        }
+        int reds = top + 1 - blackHeight;
+        int lowest = (n.getParent().getColor() == RedBlackTreeColorEnum.RED) ? 1 : 0;
+        for (int level = full ? top : top - 1; reds > 0 && level >= lowest; level -= 2) {
+            mask |= 1L << level;
+            reds--;
+        }
+        return (reds == 0) ? mask : -1;
+    }
+
+    /**
+     * Replaces a subtree with a balanced one built from its live nodes.
+     *
+     * @param n - the root of the subtree to rebuild
+     * @param colors - the red levels, from rebuildColors
+     */
+    private void rebuildSubtree(RedBlackTreeNode n, long colors) {
+        RedBlackTreeNode p = n.getParent();
+        boolean left = p != nullNode && n == p.getLeft();
+        ArrayList<RedBlackTreeNode> live = new ArrayList<>(n.getCount() - n.getTombstoneCount());
+        collectLive(n, live);
+        RedBlackTreeNode subtree = build(live, 0, live.size() - 1, 0, colors, p);
+        if (p == nullNode) {
+            root = subtree;
+            root.setColor(RedBlackTreeColorEnum.BLACK);
+        } else if (left) {
+            p.setLeft(subtree);
+        } else {
+            p.setRight(subtree);
+        }
+        updatePath(p);
+    }
+
+    /**
+     * Adds the live nodes of a subtree to the list, in order.
+     * Tombstones are unlinked by clearing their parent.
+     * @param n - the subtree root
+     * @param live - the list to fill
+     */
+    private void collectLive(RedBlackTreeNode n, ArrayList<RedBlackTreeNode> live) {
+        if (n != nullNode) {
+            collectLive(n.getLeft(), live);
+            if (!n.isDeleted()) {
+                live.add(n);
+            } else {
+                n.setParent(null);
+            }
+            collectLive(n.getRight(), live);
+        }
+    }
+
+    /**
+     * Links the nodes between lo and hi into a balanced subtree.
+     *
+     * @param nodes - the live nodes, in order
+     * @param lo - the first index of the subtree
+     * @param hi - the last index of the subtree
+     * @param depth - the depth of the subtree root
+     * @param colors - a bit mask of the levels that are red
+     * @param p - the parent of the subtree root
+     * @return the subtree root
+     */
+    private RedBlackTreeNode build(ArrayList<RedBlackTreeNode> nodes, int lo, int hi,
+                                   int depth, long colors, RedBlackTreeNode p) {
+        if (lo > hi) {
+            return nullNode;
+        }
+        int mid = (lo + hi) >>> 1;
+        RedBlackTreeNode n = nodes.get(mid);
+        n.setParent(p);
+        n.setColor(((colors >>> depth & 1) != 0) ? RedBlackTreeColorEnum.RED : RedBlackTreeColorEnum.BLACK);
+        n.setLeft(build(nodes, lo, mid - 1, depth + 1, colors, n));
+        n.setRight(build(nodes, mid + 1, hi, depth + 1, colors, n));
+        updateAggregate(n);
+        return n;
+    }
+
+    /**
+     * Folds the values of every live key between lo and hi, inclusive,
+     * using the aggregator. Only O(log n) nodes are visited: whole
+     * subtrees inside the range contribute their stored aggregate.
+     *
+     * @param lo - the smallest key in the range
+     * @param hi - the largest key in the range
+     * @return the aggregate, or the identity if no key is in range
+     */
+    public long aggregate(int lo, int hi) {
+        if (aggregator == null) {
+            throw new IllegalStateException("No aggregator is set on this tree");
+        }
+        // descend to the first node in range; the range splits there
+        RedBlackTreeNode n = root;
+        while (n != nullNode && (n.getElement() < lo || n.getElement() > hi)) {
+            n = (n.getElement() < lo) ? n.getRight() : n.getLeft();
+        }
+        if (n == nullNode) {
+            return aggregator.identity();
+        }
+        long left = aggregator.identity();
+        for (RedBlackTreeNode l = n.getLeft(); l != nullNode; ) {
+            if (l.getElement() >= lo) {
+                left = aggregator.combine(aggregator.combine(own(l), l.getRight().getAggregate()), left);
+                l = l.getLeft();
+            } else {
+                l = l.getRight();
+            }
+        }
+        long right = aggregator.identity();
+        for (RedBlackTreeNode r = n.getRight(); r != nullNode; ) {
+            if (r.getElement() <= hi) {
+                right = aggregator.combine(right, aggregator.combine(r.getLeft().getAggregate(), own(r)));
+                r = r.getRight();
+            } else {
+                r = r.getLeft();
+            }
+        }
+        return aggregator.combine(aggregator.combine(left, own(n)), right);
+    }
+
+    /**
+     * @param n - a node in the tree
+     * @return the aggregate of the node on its own; tombstones count as empty
+     */
+    private long own(RedBlackTreeNode n) {
+        return n.isDeleted() ? aggregator.identity() : aggregator.lift(n.getValue());
+    }
+
+    /**
+     * Recomputes the node and tombstone counts and the aggregate of
+     * one node from its children. The nullNode always keeps zero
+     * counts and the identity.
+     * @param n - the node whose children are up to date
+     */
+    private void updateAggregate(RedBlackTreeNode n) {
+        if (n == nullNode) {
+            return;
+        }
+        n.setCount(n.getLeft().getCount() + n.getRight().getCount() + 1);
+        n.setTombstoneCount(n.getLeft().getTombstoneCount() + n.getRight().getTombstoneCount()
+                + (n.isDeleted() ? 1 : 0));
+        if (aggregator != null) {
+            n.setAggregate(aggregator.combine(aggregator.combine(
+                    n.getLeft().getAggregate(), own(n)), n.getRight().getAggregate()));
+        }
+    }
+
+    /**
+     * Recomputes the counts and aggregates from a node up to the root.
+     * @param n - the lowest node whose subtree changed
+     */
+    private void updatePath(RedBlackTreeNode n) {
+        for (; n != nullNode; n = n.getParent()) {
+            updateAggregate(n);
+        }
+    }
+
+    /**
+     * Recomputes every aggregate in a subtree, children first.
+     * @param n - the subtree root
+     */
+    private void updateSubtree(RedBlackTreeNode n) {
+        if (n != nullNode) {
+            updateSubtree(n.getLeft());
+            updateSubtree(n.getRight());
+            updateAggregate(n);
+        }
+    }
+
+    /**
+     * @return the aggregator kept by the nodes, or null if none
+     */
+    public LongAggregator getAggregator() {
+        return aggregator;
+    }
+
+    /**
+     * Setting an aggregator recomputes the whole tree once, in O(n).
+     * @param aggregator - the aggregator to keep, or null for none
+     */
+    public void setAggregator(LongAggregator aggregator) {
+        this.aggregator = aggregator;
+        if (aggregator != null) {
+            nullNode.setAggregate(aggregator.identity());
+            updateSubtree(root);
+        }
+    }
+
+    /**
+     * @return whether deletes are lazy (tombstones) or immediate.
+     */
+    public boolean isLazyDeletion() {
+        return lazyDeletion;
+    }
+
+    /**
+     * Turning lazy deletion off does not drop pending tombstones;
+     * they are still removed by compact.
+     * @param lazyDeletion - true to delete by marking tombstones.
+     */
+    public void setLazyDeletion(boolean lazyDeletion) {
+        this.lazyDeletion = lazyDeletion;
     }
 
     /**
@@ -324,7 +895,7 @@ public class RedBlackTree {
      * @param n - the node reference for the fixup.
      */
     private void deleteFixup(RedBlackTreeNode n) {
-        while (n != root && n.getColor() != RedBlackTreeColorEnum.BLACK) {
+        while (n != root && n.getColor() == RedBlackTreeColorEnum.BLACK) {
             if (n == n.getParent().getLeft()) {
                 RedBlackTreeNode temp = n.getParent().getRight();
                 if (temp.getColor() == RedBlackTreeColorEnum.RED) {
@@ -382,6 +953,72 @@ public class RedBlackTree {
         n.setColor(RedBlackTreeColorEnum.BLACK);
     }
 
+    /**
+     * Checks every Red-Black property listed above, plus the parent
+     * links and subtree counts, and throws at the first violation found.
+     *
+     * @return the number of nodes in the tree
+     */
+    int checkInvariants() {
+        if (root != nullNode && root.getColor() != RedBlackTreeColorEnum.BLACK) {
+            throw new IllegalStateException("The root is red");
+        }
+        if (root != nullNode && root.getParent() != nullNode) {
+            throw new IllegalStateException("The root has a parent");
+        }
+        int[] count = new int[2];
+        blackHeight(root, Integer.MIN_VALUE, Integer.MAX_VALUE, count);
+        if (tombstones.size() < count[1]) {
+            throw new IllegalStateException("A tombstone is missing from the queue");
+        }
+        return count[0];
+    }
+
+    /**
+     * Checks a subtree for red-red pairs, broken parent links and
+     * keys on the wrong side of an ancestor.
+     *
+     * @param n - the subtree root
+     * @param lo - the smallest key allowed in the subtree
+     * @param hi - the largest key allowed in the subtree
+     * @param count - the nodes and the tombstones seen so far
+     * @return the number of black nodes on every path down to a leaf
+     */
+    private int blackHeight(RedBlackTreeNode n, int lo, int hi, int[] count) {
+        if (n == nullNode) {
+            return 1;
+        }
+        int nodesBefore = count[0]++;
+        int tombstonesBefore = count[1];
+        if (n.isDeleted()) {
+            count[1]++;
+        }
+        RedBlackTreeNode[] children = {n.getLeft(), n.getRight()};
+        for (RedBlackTreeNode child : children) {
+            if (child == nullNode) {
+                continue;
+            }
+            if (child.getParent() != n) {
+                throw new IllegalStateException("Broken parent link below " + n.getElement());
+            }
+            if (n.getColor() == RedBlackTreeColorEnum.RED && child.getColor() == RedBlackTreeColorEnum.RED) {
+                throw new IllegalStateException("Red node " + n.getElement() + " has a red child");
+            }
+        }
+        if (n.getElement() < lo || n.getElement() > hi) {
+            throw new IllegalStateException("Key " + n.getElement() + " is out of order");
+        }
+        int left = blackHeight(n.getLeft(), lo, n.getElement(), count);
+        if (left != blackHeight(n.getRight(), n.getElement(), hi, count)) {
+            throw new IllegalStateException("Unequal black heights below " + n.getElement());
+        }
+        if (n.getCount() != count[0] - nodesBefore
+                || n.getTombstoneCount() != count[1] - tombstonesBefore) {
+            throw new IllegalStateException("Stale subtree counts at " + n.getElement());
+        }
+        return left + ((n.getColor() == RedBlackTreeColorEnum.BLACK) ? 1 : 0);
+    }
+
     /**
      * Returns the minimum value in the tree, which is the left-most node.
      *
@@ -423,7 +1060,8 @@ public class RedBlackTree {
                     + "2.- Delete items\n"
                     + "3.- Check items\n"
                     + "4.- Print tree\n"
-                    + "5.- Delete tree\n");
+                    + "5.- Delete tree\n"
+                    + "6.- Toggle lazy deletion\n");
             int choice = scan.nextInt();
 
             int item;
@@ -461,6 +1099,8 @@ public class RedBlackTree {
                         item = scan.nextInt();
                     }
                     System.out.println();
+                    // pay for the tombstones between batches, not per delete
+                    compact();
                     System.out.println("In Order Strategy.");
                     traversalStrategy.execute(root, nullNode);
                     System.out.println("\nPre Order Strategy.");
@@ -475,7 +1115,7 @@ public class RedBlackTree {
                     item = scan.nextInt();
                     while (item != -999) {
                         node = new RedBlackTreeNode(item);
-                        System.out.println((find(node, root) != nullNode) ? "found" : "not found");
+                        System.out.println((lookup(node.getElement()) != nullNode) ? "found" : "not found");
                         item = scan.nextInt();
                     }
                     break;
@@ -494,6 +1134,10 @@ public class RedBlackTree {
                     deleteTree();
                     System.out.println("Tree deleted!");
                     break;
+                case 6:
+                    setLazyDeletion(!lazyDeletion);
+                    System.out.println("Lazy deletion " + (lazyDeletion ? "on" : "off"));
+                    break;
             }
         }
     }
@@ -544,6 +1188,33 @@ public class RedBlackTree {
          */
         private int color;
 
+        /**
+         * True once the node is a tombstone, which lookups and
+         * traversals skip until compact unlinks it.
+         */
+        private boolean deleted;
+
+        /**
+         * The value associated with the key, folded by the aggregator.
+         * Set it before the node is inserted.
+         */
+        private long value;
+
+        /**
+         * The aggregate of the values in this node's subtree.
+         */
+        private long aggregate;
+
+        /**
+         * The number of nodes in this subtree, tombstones included.
+         */
+        private int count;
+
+        /**
+         * The number of tombstones in this subtree.
+         */
+        private int tombstoneCount;
+
         /**
          * The default constructor makes a nullNode
          */
@@ -657,6 +1328,76 @@ public class RedBlackTree {
         public void setColor(int color) {
             this.color = color;
         }
+
+        /**
+         * @return true if the node is a tombstone
+         */
+        public boolean isDeleted() {
+            return deleted;
+        }
+
+        /**
+         * @param deleted - true to mark the node as a tombstone
+         */
+        public void setDeleted(boolean deleted) {
+            this.deleted = deleted;
+        }
+
+        /**
+         * @return the value associated with the key
+         */
+        public long getValue() {
+            return value;
+        }
+
+        /**
+         * @param value - the value to associate with the key
+         */
+        public void setValue(long value) {
+            this.value = value;
+        }
+
+        /**
+         * @return the aggregate of the values in this subtree
+         */
+        public long getAggregate() {
+            return aggregate;
+        }
+
+        /**
+         * @param aggregate - the aggregate of the values in this subtree
+         */
+        public void setAggregate(long aggregate) {
+            this.aggregate = aggregate;
+        }
+
+        /**
+         * @return the number of nodes in this subtree
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @param count - the number of nodes in this subtree
+         */
+        public void setCount(int count) {
+            this.count = count;
+        }
+
+        /**
+         * @return the number of tombstones in this subtree
+         */
+        public int getTombstoneCount() {
+            return tombstoneCount;
+        }
+
+        /**
+         * @param tombstoneCount - the number of tombstones in this subtree
+         */
+        public void setTombstoneCount(int tombstoneCount) {
+            this.tombstoneCount = tombstoneCount;
+        }
     }
 
 }
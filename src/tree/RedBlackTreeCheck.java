@@ -0,0 +1,228 @@
+package tree;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Regression check for the rebalancing code. It runs random inserts
+ * and deletes, duplicates included, against both a RedBlackTree and a
+ * TreeMap of key counts, and validates the Red-Black properties and
+ * parent links after every operation. The run is repeated in lazy
+ * deletion mode with compaction slices of random size mixed in.
+ * Both runs are repeated, a quarter as long, with a SUM, MIN and MAX
+ * aggregator set part way through, checking range aggregates against
+ * a fold of the TreeMap after every operation. They are repeated once
+ * more with a find cache of FIND_CACHE_SLOTS slots, so small that hot
+ * keys collide all the time, and a deleteTree half way through.
+ * A last run deletes at a steady rate and checks that paying the
+ * compaction debt keeps the tombstone count bounded.
+ *
+ * Usage: java tree.RedBlackTreeCheck [operations] [seed]
+ *
+ * @version 1.0
+ * @author Slidejiveman
+ */
+public class RedBlackTreeCheck {
+
+    /**
+     * Keys are drawn from this range, so duplicates and misses are common.
+     */
+    private static final int KEY_RANGE = 500;
+
+    /**
+     * The backlog run pays its compaction debt once per this many
+     * operations.
+     */
+    private static final int COMPACTION_INTERVAL = 1024;
+
+    /**
+     * The size of the find cache in the cache runs.
+     */
+    private static final int FIND_CACHE_SLOTS = 8;
+
+    /**
+     * The aggregators checked by the aggregate runs.
+     */
+    private static final LongAggregator[] AGGREGATORS = {
+            LongAggregator.SUM, LongAggregator.MIN, LongAggregator.MAX};
+
+    /**
+     * Runs the check and exits with a non-zero status on a failure.
+     * @param args - [operations] [seed]
+     */
+    public static void main(String[] args) {
+        int operations = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        long seed = (args.length > 1) ? Long.parseLong(args[1]) : 1;
+        try {
+            check(operations, new Random(seed), false, null, 0);
+            check(operations, new Random(seed), true, null, 0);
+            for (LongAggregator aggregator : AGGREGATORS) {
+                check(operations / 4, new Random(seed), false, aggregator, 0);
+                check(operations / 4, new Random(seed), true, aggregator, 0);
+            }
+            check(operations, new Random(seed), false, null, FIND_CACHE_SLOTS);
+            check(operations, new Random(seed), true, null, FIND_CACHE_SLOTS);
+            checkBacklog(operations, new Random(seed));
+        } catch (IllegalStateException e) {
+            System.err.println("FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("OK: " + operations + " operations, eager and lazy,"
+                + " with and without aggregates and the find cache");
+    }
+
+    /**
+     * @param operations - the number of random operations to run
+     * @param random - the source of keys and operations
+     * @param lazy - true to delete by tombstones and compact
+     * @param aggregator - the aggregator to set a quarter of the way
+     *                   in and check from then on, or null for none
+     * @param findCache - the find cache slots, or 0 for no cache
+     */
+    private static void check(int operations, Random random, boolean lazy,
+                              LongAggregator aggregator, int findCache) {
+        RedBlackTree rbt = new RedBlackTree();
+        rbt.setLazyDeletion(lazy);
+        rbt.setFindCache(findCache);
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        long salt = random.nextLong();
+        int size = 0;
+        for (int i = 0; i < operations; i++) {
+            if (aggregator != null && i == operations / 4) {
+                rbt.setAggregator(aggregator);
+            }
+            if (findCache > 0 && i == operations / 2) {
+                // every cached node leaves the tree at once
+                rbt.deleteTree();
+                expected.clear();
+                size = 0;
+                for (int k = 0; k < KEY_RANGE; k++) {
+                    if (rbt.contains(k)) {
+                        throw new IllegalStateException("Lookup of " + k + " found a key after deleteTree");
+                    }
+                }
+            }
+            int key = random.nextInt(KEY_RANGE);
+            int choice = random.nextInt(lazy ? 6 : 4);
+            if (choice < 2) {
+                rbt.insert(key, value(key, salt));
+                expected.merge(key, 1, Integer::sum);
+                size++;
+            } else if (choice < 4) {
+                Integer count = expected.get(key);
+                if (rbt.delete(key) != (count != null)) {
+                    throw new IllegalStateException("Delete of " + key + " disagrees at operation " + i);
+                }
+                if (count != null) {
+                    if (count == 1) {
+                        expected.remove(key);
+                    } else {
+                        expected.put(key, count - 1);
+                    }
+                    size--;
+                }
+            } else if (choice < 5) {
+                rbt.compact(1 + random.nextInt(64));
+            } else {
+                rbt.compact();
+            }
+            int nodes = rbt.checkInvariants();
+            if (rbt.size() != size || (!lazy && nodes != size)) {
+                throw new IllegalStateException("Expected " + size + " keys at operation " + i);
+            }
+            if (rbt.contains(key) != expected.containsKey(key)) {
+                throw new IllegalStateException("Lookup of " + key + " disagrees at operation " + i);
+            }
+            if (rbt.getAggregator() != null) {
+                int lo = random.nextInt(KEY_RANGE + 20) - 10;
+                checkAggregate(rbt, expected, salt, lo, lo + random.nextInt(KEY_RANGE / 4), i);
+                checkAggregate(rbt, expected, salt, key - 5, key + 5, i);
+            }
+        }
+        rbt.rebuild();
+        if (rbt.checkInvariants() != size) {
+            throw new IllegalStateException("Rebuild kept a tombstone");
+        }
+        for (int key = 0; key < KEY_RANGE; key++) {
+            if (rbt.contains(key) != expected.containsKey(key)) {
+                throw new IllegalStateException("Lookup of " + key + " disagrees after rebuild");
+            }
+        }
+        if (aggregator != null) {
+            checkAggregate(rbt, expected, salt, Integer.MIN_VALUE, Integer.MAX_VALUE, operations);
+        }
+    }
+
+    /**
+     * Compares the tree's aggregate of a range with a fold over the
+     * TreeMap, counting each copy of a duplicated key.
+     *
+     * @param rbt - the tree under check
+     * @param expected - the key counts the tree should hold
+     * @param salt - the salt the values were derived with
+     * @param lo - the smallest key in the range
+     * @param hi - the largest key in the range
+     * @param operation - the index of the operation, for the message
+     */
+    private static void checkAggregate(RedBlackTree rbt, TreeMap<Integer, Integer> expected,
+                                       long salt, int lo, int hi, int operation) {
+        LongAggregator aggregator = rbt.getAggregator();
+        long fold = aggregator.identity();
+        for (Map.Entry<Integer, Integer> e : expected.subMap(lo, true, hi, true).entrySet()) {
+            for (int copy = 0; copy < e.getValue(); copy++) {
+                fold = aggregator.combine(fold, aggregator.lift(value(e.getKey(), salt)));
+            }
+        }
+        long actual = rbt.aggregate(lo, hi);
+        if (actual != fold) {
+            throw new IllegalStateException("Aggregate of [" + lo + ", " + hi + "] is " + actual
+                    + " instead of " + fold + " at operation " + operation);
+        }
+    }
+
+    /**
+     * Every copy of a key carries the same value, so the TreeMap of
+     * key counts is enough to know what any range should fold to.
+     *
+     * @param key - the key
+     * @param salt - varies the values from run to run
+     * @return the value stored with the key, positive or negative
+     */
+    private static long value(int key, long salt) {
+        return ((key + salt) * 0x9E3779B97F4A7C15L) >> 32;
+    }
+
+    /**
+     * Deletes at a steady rate in lazy mode, paying the compaction debt
+     * once per interval, and checks that the tombstones never outnumber
+     * the deletes of one interval, so the dead part of the tree cannot grow.
+     *
+     * @param operations - the number of random operations to run
+     * @param random - the source of keys and operations
+     */
+    private static void checkBacklog(int operations, Random random) {
+        RedBlackTree rbt = new RedBlackTree();
+        rbt.setLazyDeletion(true);
+        int deletes = 0;
+        for (int i = 1; i <= operations; i++) {
+            int key = random.nextInt(KEY_RANGE * 100);
+            if (random.nextInt(10) < 3) {
+                if (rbt.delete(key)) {
+                    deletes++;
+                }
+            } else {
+                rbt.insert(key);
+            }
+            if (i % COMPACTION_INTERVAL == 0) {
+                if (rbt.getTombstoneCount() > deletes) {
+                    throw new IllegalStateException(rbt.getTombstoneCount() + " tombstones after "
+                            + deletes + " deletes at operation " + i);
+                }
+                rbt.compact();
+                rbt.checkInvariants();
+                deletes = 0;
+            }
+        }
+    }
+}
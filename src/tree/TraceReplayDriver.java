@@ -0,0 +1,352 @@
+package tree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Headless replacement for the console UI that replays a recorded
+ * operation trace against a RedBlackTree as fast as it can, then
+ * reports the throughput and a latency histogram per operation.
+ *
+ * The trace file is memory mapped in large windows, so even traces
+ * of 100M operations are read without copying them onto the heap.
+ * Two formats are understood:
+ * 1. Text (default): one operation per line, "I 42", "D 42" or "F 42"
+ *    for insert, delete and find. Blank lines and lines starting
+ *    with # are ignored.
+ * 2. Binary (--binary): 5-byte records, the opcode byte 'I', 'D'
+ *    or 'F' followed by the key as a big-endian int.
+ *
+ * Usage: java tree.TraceReplayDriver [--binary] [--lazy] [--find-cache] trace-file
+ * --lazy replays deletes as tombstones and pays their compaction debt
+ * every few thousand deletes; the compaction slices are reported as
+ * their own row. The report ends with the live and tombstoned keys
+ * left, so a tree bloated by tombstones shows up.
+ * --find-cache turns on the hot-key find cache.
+ *
+ * @version 1.0
+ * @author Slidejiveman
+ */
+public class TraceReplayDriver {
+
+    /**
+     * The size of one record in the binary format.
+     */
+    private static final int RECORD_BYTES = 5;
+
+    /**
+     * How much of the trace is mapped at a time. It is a multiple
+     * of RECORD_BYTES so binary records never straddle two windows.
+     */
+    private static final long WINDOW_BYTES = RECORD_BYTES * (1L << 26);
+
+    /**
+     * In lazy mode, compact runs once per this many deletes.
+     */
+    private static final int COMPACTION_INTERVAL = 4096;
+
+    /**
+     * The size of the find cache when --find-cache is given.
+     */
+    private static final int FIND_CACHE_SLOTS = 16384;
+
+    private static final int INSERT = 0;
+    private static final int DELETE = 1;
+    private static final int FIND = 2;
+    private static final int COMPACT = 3;
+    private static final String[] NAMES = {"insert", "delete", "find", "compact"};
+
+    /**
+     * The tree that the trace is replayed against.
+     */
+    private final RedBlackTree tree;
+
+    /**
+     * One latency histogram per kind of operation, plus one for the
+     * compaction slices run in lazy mode.
+     */
+    private final LatencyHistogram[] histograms = {
+            new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram(),
+            new LatencyHistogram()};
+
+    /**
+     * The number of operations replayed so far.
+     */
+    private long operations;
+
+    /**
+     * The number of deletes replayed so far.
+     */
+    private long deletes;
+
+    /**
+     * @param tree - the tree to replay the trace against
+     */
+    public TraceReplayDriver(RedBlackTree tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * Replays a whole trace file, window by window.
+     *
+     * @param file - the path of the trace
+     * @param binary - true for 5-byte records, false for text lines
+     * @throws IOException if the trace cannot be read
+     */
+    public void replay(String file, boolean binary) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            long length = channel.size();
+            long position = 0;
+            while (position < length) {
+                long window = Math.min(WINDOW_BYTES, length - position);
+                boolean last = position + window == length;
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, window);
+                int consumed = binary ? replayBinary(buffer) : replayText(buffer, last);
+                if (consumed == 0) {
+                    throw new IOException("Malformed trace at byte " + position);
+                }
+                position += consumed;
+            }
+        }
+    }
+
+    /**
+     * Replays every whole binary record in the buffer.
+     * @param buffer - a window of the trace
+     * @return the number of bytes consumed
+     * @throws IOException if an opcode is unknown
+     */
+    private int replayBinary(ByteBuffer buffer) throws IOException {
+        while (buffer.remaining() >= RECORD_BYTES) {
+            execute(opcode(buffer.get()), buffer.getInt());
+        }
+        return buffer.position();
+    }
+
+    /**
+     * Replays every whole line in the buffer. A line cut off by the
+     * end of the window is left for the next window, unless this is
+     * the last window, where a missing final newline is allowed.
+     *
+     * @param buffer - a window of the trace
+     * @param last - true if the window ends at the end of the file
+     * @return the number of bytes consumed
+     * @throws IOException if a line cannot be parsed
+     */
+    private int replayText(ByteBuffer buffer, boolean last) throws IOException {
+        int limit = buffer.limit();
+        int lineStart = 0;
+        while (lineStart < limit) {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            if (lineEnd == limit && !last) {
+                break; // the rest of this line is in the next window
+            }
+            parseLine(buffer, lineStart, lineEnd);
+            lineStart = lineEnd + 1;
+        }
+        return Math.min(lineStart, limit);
+    }
+
+    /**
+     * Parses and executes a single text line, without allocating.
+     * @param buffer - the window holding the line
+     * @param start - the index of the first byte of the line
+     * @param end - the index just past the last byte of the line
+     * @throws IOException if the line cannot be parsed
+     */
+    private void parseLine(ByteBuffer buffer, int start, int end) throws IOException {
+        int i = skipSpaces(buffer, start, end);
+        if (i == end || buffer.get(i) == '#') {
+            return;
+        }
+        int op = opcode(buffer.get(i));
+        i = skipSpaces(buffer, i + 1, end);
+        boolean negative = i < end && buffer.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+        if (i == end) {
+            throw new IOException("Missing key in trace line");
+        }
+        long key = 0;
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                break;
+            }
+            key = key * 10 + (b - '0');
+            if (key > (negative ? Integer.MAX_VALUE + 1L : Integer.MAX_VALUE)) {
+                throw new IOException("Key out of range in trace line");
+            }
+        }
+        if (skipSpaces(buffer, i, end) != end) {
+            throw new IOException("Unexpected characters in trace line");
+        }
+        execute(op, (int) (negative ? -key : key));
+    }
+
+    /**
+     * @return the index of the first byte from start that is not blank
+     */
+    private static int skipSpaces(ByteBuffer buffer, int start, int end) {
+        while (start < end) {
+            byte b = buffer.get(start);
+            if (b != ' ' && b != '\t' && b != '\r') {
+                break;
+            }
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * @param b - the opcode byte from the trace
+     * @return INSERT, DELETE or FIND
+     * @throws IOException if the byte is not a known opcode
+     */
+    private static int opcode(byte b) throws IOException {
+        switch (b) {
+            case 'I':
+                return INSERT;
+            case 'D':
+                return DELETE;
+            case 'F':
+                return FIND;
+            default:
+                throw new IOException("Unknown opcode '" + (char) b + "' in trace");
+        }
+    }
+
+    /**
+     * Runs one operation against the tree and records its latency.
+     * Compaction slices run on the same thread, so they get their own
+     * histogram rather than hiding between operations.
+     * @param op - INSERT, DELETE or FIND
+     * @param key - the key of the operation
+     */
+    private void execute(int op, int key) {
+        long start = System.nanoTime();
+        switch (op) {
+            case INSERT:
+                tree.insert(key);
+                break;
+            case DELETE:
+                tree.delete(key);
+                break;
+            default:
+                tree.contains(key);
+                break;
+        }
+        histograms[op].record(System.nanoTime() - start);
+        operations++;
+        if (op == DELETE && ++deletes % COMPACTION_INTERVAL == 0 && tree.isLazyDeletion()) {
+            start = System.nanoTime();
+            tree.compact();
+            histograms[COMPACT].record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Prints the throughput and the latency percentiles.
+     * @param elapsedNanos - the wall clock time of the replay
+     */
+    public void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%d operations in %.3f s (%.0f ops/s)%n",
+                operations, seconds, operations / Math.max(seconds, 1e-9));
+        System.out.println("latency in ns, percentiles are bucket upper bounds");
+        for (int op = 0; op < histograms.length; op++) {
+            LatencyHistogram h = histograms[op];
+            if (h.count > 0) {
+                System.out.printf("%-7s count=%d mean=%d p50<=%d p90<=%d p99<=%d p99.9<=%d max=%d%n",
+                        NAMES[op], h.count, h.total / h.count, h.percentile(0.50),
+                        h.percentile(0.90), h.percentile(0.99), h.percentile(0.999), h.max);
+            }
+        }
+        LatencyHistogram compaction = histograms[COMPACT];
+        if (compaction.count > 0) {
+            System.out.printf("compaction took %.3f s of the replay%n", compaction.total / 1e9);
+        }
+        System.out.printf("tree ends with %d live keys and %d tombstones%n",
+                tree.size(), tree.getTombstoneCount());
+    }
+
+    /**
+     * Replays the trace named on the command line.
+     * @param args - [--binary] [--lazy] [--find-cache] trace-file
+     * @throws IOException if the trace cannot be read or parsed
+     */
+    public static void main(String[] args) throws IOException {
+        boolean binary = false;
+        boolean lazy = false;
+        boolean findCache = false;
+        String file = null;
+        for (String arg : args) {
+            if (arg.equals("--binary")) {
+                binary = true;
+            } else if (arg.equals("--lazy")) {
+                lazy = true;
+            } else if (arg.equals("--find-cache")) {
+                findCache = true;
+            } else {
+                file = arg;
+            }
+        }
+        if (file == null) {
+            System.err.println("Usage: java tree.TraceReplayDriver [--binary] [--lazy] [--find-cache] trace-file");
+            System.exit(2);
+        }
+        RedBlackTree rbt = new RedBlackTree();
+        rbt.setLazyDeletion(lazy);
+        rbt.setFindCache(findCache ? FIND_CACHE_SLOTS : 0);
+        TraceReplayDriver driver = new TraceReplayDriver(rbt);
+        long start = System.nanoTime();
+        driver.replay(file, binary);
+        driver.report(System.nanoTime() - start);
+    }
+
+    /**
+     * A histogram with one bucket per power of two nanoseconds,
+     * so recording is a couple of instructions and never allocates.
+     */
+    private static class LatencyHistogram {
+
+        private final long[] buckets = new long[64];
+        private long count;
+        private long total;
+        private long max;
+
+        /**
+         * @param nanos - the latency of one operation
+         */
+        void record(long nanos) {
+            buckets[64 - Long.numberOfLeadingZeros(nanos)]++;
+            count++;
+            total += nanos;
+            max = Math.max(max, nanos);
+        }
+
+        /**
+         * @param fraction - the percentile as a fraction, e.g. 0.99
+         * @return the upper bound of the bucket holding the percentile
+         */
+        long percentile(double fraction) {
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int b = 0; b < buckets.length; b++) {
+                seen += buckets[b];
+                if (seen >= rank) {
+                    return Math.min((1L << b) - 1, max);
+                }
+            }
+            return max;
+        }
+    }
+}